@@ -0,0 +1,143 @@
+import java.io.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The Archive class streams a Tree as tar or zip <p>
+ * Blobs are copied from git cat-file --batch in small pieces <br>
+ * while a feeder Thread requests the Blobs ahead of the writer
+ *
+ * @see     Git.Commit
+ */
+public class Archive {
+
+    final Exec X;
+    final long time; //msec, the same for all entries
+    final List<String> path = new ArrayList<>();
+    final List<String> mode = new ArrayList<>();
+    final List<String> hash = new ArrayList<>(); //null for folders
+
+    final static int BLOCK = 512;
+    final static String DIR = "040000", EXE = "100755", LINK = "120000";
+
+    /** Collects the paths in Tree t -- time is given in msec */
+    public Archive(Exec x, Git.Tree t, long time) {
+        X = x; this.time = time; collect(t, "");
+    }
+    void collect(Git.Tree t, String dir) {
+        for (int i=0; i<t.getChildCount(); i++) {
+            Git.Entry e = t.getChildAt(i);
+            String p = dir+t.getNameAt(i);
+            if (e instanceof Git.Tree) {
+                path.add(p+"/"); mode.add(DIR); hash.add(null);
+                collect((Git.Tree)e, p+"/");
+            } else {
+                path.add(p); mode.add(t.getModeAt(i)); hash.add(e.hash);
+            }
+        }
+    }
+    /** number of files and folders */
+    public int size() { return path.size(); }
+    /** sends all Blob requests in a separate Thread */
+    Thread feed(Exec.Batch b) {
+        List<String> a = new ArrayList<>();
+        for (String h : hash) if (h != null) a.add(h);
+        return b.requestAll(a);
+    }
+    /** reads the next Blob header, which must match h */
+    static void next(Exec.Batch b, String h) throws IOException {
+        if (!Git.BLOB.equals(b.next()))
+            throw new IOException("missing blob "+h);
+    }
+    /** writes the tar archive into out -- out is not closed */
+    public void writeTar(OutputStream out) throws IOException {
+        Exec.Batch b = X.openBatch(); feed(b);
+        try {
+            for (int i=0; i<path.size(); i++) {
+                String p = path.get(i), m = mode.get(i), h = hash.get(i);
+                if (h == null) {
+                    tarHeader(out, p, 0755, 0, '5', ""); continue;
+                }
+                next(b, h);
+                if (m.equals(LINK)) {
+                    String s = new String(b.read(), "UTF-8");
+                    tarHeader(out, p, 0777, 0, '2', s); continue;
+                }
+                tarHeader(out, p, m.equals(EXE)? 0755 : 0644, b.size(), '0', "");
+                b.copyTo(out); pad(out, b.size());
+            }
+            out.write(new byte[2*BLOCK]); out.flush();
+        } finally {
+            b.close();
+        }
+    }
+    /** writes the zip archive into out -- out is not closed */
+    public void writeZip(OutputStream out) throws IOException {
+        Exec.Batch b = X.openBatch(); feed(b);
+        ZipOutputStream z = new ZipOutputStream(out);
+        try {
+            for (int i=0; i<path.size(); i++) {
+                String h = hash.get(i);
+                ZipEntry e = new ZipEntry(path.get(i));
+                e.setTime(time); z.putNextEntry(e);
+                if (h != null) { next(b, h); b.copyTo(z); }
+                z.closeEntry();
+            }
+            z.finish(); out.flush();
+        } finally {
+            b.close();
+        }
+    }
+    void tarHeader(OutputStream out, String name, int m, long size,
+                   char type, String link) throws IOException {
+        byte[] n = utf(name), k = utf(link);
+        if (k.length > 100) longName(out, 'K', k);
+        byte[] pre = new byte[0];
+        if (n.length > 100) { //split at the first '/' that fits ustar
+            int i = name.indexOf('/');
+            while (i > 0 && utf(name.substring(i+1)).length > 100)
+                i = name.indexOf('/', i+1);
+            if (i > 0 && i < name.length()-1) pre = utf(name.substring(0, i));
+            if (pre.length > 0 && pre.length <= 155) { //in bytes
+                n = utf(name.substring(i+1));
+            } else { //full name
+                longName(out, 'L', n); pre = new byte[0];
+            }
+        }
+        byte[] h = new byte[BLOCK];
+        put(h, 0, n, 100);
+        octal(h, 100, 8, m); octal(h, 108, 8, 0); octal(h, 116, 8, 0);
+        octal(h, 124, 12, size); octal(h, 136, 12, time/1000);
+        h[156] = (byte)type;
+        put(h, 157, k, 100);
+        put(h, 257, "ustar\0".getBytes(), 6);
+        put(h, 263, "00".getBytes(), 2);
+        put(h, 345, pre, 155);
+        Arrays.fill(h, 148, 156, (byte)' ');
+        int sum = 0;
+        for (byte x : h) sum += (x & 0xFF);
+        octal(h, 148, 7, sum); h[154] = 0; //NUL and space
+        out.write(h);
+    }
+    /** GNU extension for names longer than 100 bytes */
+    void longName(OutputStream out, char type, byte[] n) throws IOException {
+        tarHeader(out, "././@LongLink", 0, n.length+1, type, "");
+        out.write(n); out.write(0); pad(out, n.length+1);
+    }
+    static byte[] utf(String s) throws IOException {
+        return s.getBytes("UTF-8");
+    }
+    static void put(byte[] h, int p, byte[] b, int max) {
+        System.arraycopy(b, 0, h, p, Math.min(b.length, max));
+    }
+    static void octal(byte[] h, int p, int len, long v) { //ends with NUL
+        String s = Long.toOctalString(v);
+        while (s.length() < len-1) s = "0"+s;
+        put(h, p, s.getBytes(), len-1);
+    }
+    static void pad(OutputStream out, long n) throws IOException {
+        int r = (int)(n % BLOCK);
+        if (r > 0) out.write(new byte[BLOCK-r]);
+    }
+}
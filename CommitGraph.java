@@ -0,0 +1,319 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * The CommitGraph class answers ancestry questions quickly <p>
+ * Commits are numbered 0..n-1 in SHA order, parents are int arrays <br>
+ * Walks are bounded by generation numbers (topological levels)
+ * <p>
+ * Uses .git/objects/info/commit-graph when it has all the refs <br>
+ * otherwise the graph is made from git rev-list --all --parents
+ * <p>
+ * The graph has every ancestor of its commits <br>
+ * queries on other commits (not reachable from a ref, or newer) go to git
+ *
+ * @see     Git#getCommitGraph()
+ */
+public class CommitGraph {
+
+    final Exec X;
+    final int n; //number of commits
+    ByteBuffer id;        //20 bytes per commit, sorted
+    final int[] first;    //parents of i are par[first[i]..first[i+1]-1]
+    final int[] par;
+    final int[] gen;      //1 for root commits, larger than each parent
+
+    //scratch data for the walks -- cleared after each query
+    final byte[] flag;
+    int[] heap = new int[64]; int hn;  //max-heap ordered by gen
+    int[] seen = new int[64]; int sn;  //positions with a flag set
+
+    final static byte P1 = 1, P2 = 2, STALE = 4, QUEUED = 8;
+    final static int L = ObjectTable.L, NONE = 0x70000000;
+
+    /** Reads the commit-graph file, or asks git if it is missing or old */
+    public CommitGraph(Exec x, Collection<String> tips) {
+        X = x;
+        ByteBuffer b = null;
+        File f = new File(x.root, ".git/objects/info/commit-graph");
+        try {
+            if (f.isFile()) b = ObjectTable.map(f);
+        } catch (IOException e) { //use rev-list
+        }
+        int[][] a = b == null? null : readFile(b);
+        if (a == null || !covers(x, a, tips)) a = readRevList(x);
+        n = a[0].length - 1; first = a[0]; par = a[1]; gen = a[2];
+        flag = new byte[n];
+        System.out.println(n+" commits in graph");
+    }
+
+    /** returns {first, par, gen} or null if the file cannot be used */
+    int[][] readFile(ByteBuffer b) {
+        if (b.getInt(0) != 0x43475048 || b.get(4) != 1 || b.get(5) != 1)
+            return null;  //"CGPH", version 1, SHA-1
+        if (b.get(7) != 0) return null; //split graphs are not read
+        int k = b.get(6);
+        int oidl = -1, cdat = -1, edge = -1;
+        for (int i=0; i<k; i++) {
+            int p = 8 + 12*i;
+            int c = b.getInt(p); int off = (int)b.getLong(p+4);
+            if (c == 0x4f49444c) oidl = off;      //OIDL
+            else if (c == 0x43444154) cdat = off; //CDAT
+            else if (c == 0x45444745) edge = off; //EDGE
+        }
+        if (oidl < 0 || cdat < 0) return null;
+        int m = (cdat - oidl)/L;
+        int[] fi = new int[m+1], g = new int[m];
+        int[] pa = new int[2*m]; int np = 0;
+        for (int i=0; i<m; i++) {
+            int p = cdat + (L+16)*i + L;
+            fi[i] = np;
+            int p1 = b.getInt(p), p2 = b.getInt(p+4);
+            g[i] = b.getInt(p+8) >>> 2;
+            if (g[i] == 0) return null; //written without generations
+            if (p1 != NONE) { pa = grow(pa, np); pa[np++] = p1; }
+            if (p2 == NONE) continue;
+            if (p2 >= 0) { pa = grow(pa, np); pa[np++] = p2; continue; }
+            if (edge < 0) return null;
+            int e = edge + 4*(p2 & 0x7fffffff), v;
+            do { //octopus merge
+                v = b.getInt(e); e += 4;
+                pa = grow(pa, np); pa[np++] = v & 0x7fffffff;
+            } while (v >= 0);
+        }
+        fi[m] = np;
+        b.position(oidl); b.limit(oidl + L*m);
+        id = b.slice();
+        return new int[][] {fi, pa, g};
+    }
+    /** a itself if there is room for a[k], else a larger copy */
+    static int[] grow(int[] a, int k) {
+        return k < a.length? a : Arrays.copyOf(a, 2*k+2);
+    }
+    /** 
+     * true if all commits pointed by tips are in the graph <p>
+     * tips not in the graph (tags) are peeled in one git process
+     */
+    boolean covers(Exec x, int[][] a, Collection<String> tips) {
+        int m = a[0].length - 1;
+        List<String> peel = new ArrayList<>();
+        for (String h : tips)
+            if (ObjectTable.find(id, m, h) < 0) peel.add(h+"^{commit}");
+        if (peel.isEmpty()) return true;
+        try (Exec.Batch b = x.openBatchCheck()) {
+            b.requestAll(peel);
+            for (int i=0; i<peel.size(); i++) {
+                if (b.next() == null) continue; //not a commit
+                if (ObjectTable.find(id, m, b.hash()) >= 0) continue;
+                System.out.println("commit-graph is old: "+b.hash());
+                return false;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return true;
+    }
+    /** runs git rev-list and computes the generations -- children first */
+    int[][] readRevList(Exec x) {
+        String[] REVLIST =
+        {"git", "rev-list", "--all", "--parents", "--topo-order"};
+        List<String> out = new ArrayList<>();
+        Process p = x.start(REVLIST);
+        try (BufferedReader in = new BufferedReader
+                (new InputStreamReader(p.getInputStream()))) {
+            String s;
+            while ((s = in.readLine()) != null) out.add(s);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            p.destroy();
+        }
+        int m = out.size();
+        String[] h = new String[m];
+        for (int i=0; i<m; i++) h[i] = out.get(i).substring(0, 2*L);
+        Arrays.sort(h);
+        byte[] ba = new byte[L*m], t = new byte[L];
+        for (int i=0; i<m; i++) {
+            ObjectTable.toBytes(h[i], t, L);
+            System.arraycopy(t, 0, ba, L*i, L);
+        }
+        id = ByteBuffer.wrap(ba);
+        int[] order = new int[m]; //positions in rev-list order
+        int[][] pl = new int[m][];
+        for (int i=0; i<m; i++) {
+            String[] a = out.get(i).split(" ");
+            int c = Arrays.binarySearch(h, a[0]);
+            order[i] = c;
+            int[] q = new int[a.length-1]; int k = 0;
+            for (int j=1; j<a.length; j++) { //skip parents not listed
+                int v = Arrays.binarySearch(h, a[j]);
+                if (v >= 0) q[k++] = v;
+            }
+            pl[c] = Arrays.copyOf(q, k);
+        }
+        int[] fi = new int[m+1];
+        for (int i=0; i<m; i++) fi[i+1] = fi[i] + pl[i].length;
+        int[] pa = new int[fi[m]], g = new int[m];
+        for (int i=0; i<m; i++)
+            System.arraycopy(pl[i], 0, pa, fi[i], pl[i].length);
+        for (int i=m-1; i>=0; i--) { //parents come after children
+            int c = order[i], v = 0;
+            for (int j=fi[c]; j<fi[c+1]; j++) v = Math.max(v, g[pa[j]]);
+            g[c] = v+1;
+        }
+        return new int[][] {fi, pa, g};
+    }
+
+    /** number of commits */
+    public int size() { return n; }
+    /** position of the commit with SHA h, or -1 if it is not in the graph */
+    public int find(String h) { return ObjectTable.find(id, n, h); }
+    /** SHA of the commit at position i */
+    public String getHash(int i) { return ObjectTable.getHash(id, i); }
+    /** generation number of the commit at position i */
+    public int getGeneration(int i) { return gen[i]; }
+    /** true if commit a is reachable from commit b */
+    public boolean isAncestor(String a, String b) {
+        int j = find(b);
+        if (j < 0) { //git answers with the exit code
+            Process p = X.start("git", "merge-base", "--is-ancestor", a, b);
+            try {
+                return p.waitFor() == 0;
+            } catch (InterruptedException x) {
+                throw new RuntimeException(x);
+            }
+        }
+        int i = find(a); //all ancestors of b are in the graph
+        return i >= 0 && isAncestor(i, j);
+    }
+    /** a common ancestor of a and b that is not behind another one */
+    public String mergeBase(String a, String b) {
+        int i = find(a), j = find(b);
+        if (i < 0 || j < 0) {
+            String[] sa = X.execute("git", "merge-base", a, b);
+            return sa.length == 0? null : sa[0].trim();
+        }
+        int c = mergeBase(i, j);
+        return c < 0? null : getHash(c);
+    }
+    /** {number of commits in a but not in b, and in b but not in a} */
+    public int[] aheadBehind(String a, String b) {
+        int i = find(a), j = find(b);
+        if (i < 0 || j < 0) {
+            String[] sa = X.execute
+                ("git", "rev-list", "--left-right", "--count", a+"..."+b);
+            String[] k = sa[0].trim().split("\\s+");
+            return new int[] {Integer.parseInt(k[0]), Integer.parseInt(k[1])};
+        }
+        return aheadBehind(i, j);
+    }
+    /** depth-first walk from b, skipping commits older than a */
+    public synchronized boolean isAncestor(int a, int b) {
+        if (a == b) return true;
+        if (gen[a] >= gen[b]) return false;
+        int g = gen[a]; boolean found = false;
+        mark(b, QUEUED); push(b);
+        while (hn > 0 && !found) {
+            int c = heap[--hn]; //used as a stack here
+            for (int j=first[c]; j<first[c+1]; j++) {
+                int p = par[j];
+                if (p == a) { found = true; break; }
+                if (gen[p] <= g || (flag[p] & QUEUED) != 0) continue;
+                mark(p, QUEUED); push(p);
+            }
+        }
+        clear(); return found;
+    }
+    /** paints both sides in generation order until only common is left */
+    public synchronized int mergeBase(int a, int b) {
+        int r = -1;
+        if (a == b) return a;
+        start(a, b);
+        while (nonStale > 0) {
+            int c = pop();
+            int f = flag[c] & (P1|P2|STALE);
+            if (f == (P1|P2)) {
+                if (r < 0) r = c;  //the first one has the largest gen
+                f |= STALE;
+            }
+            paint(c, f);
+        }
+        clear(); return r;
+    }
+    /** counts the commits painted by only one side */
+    public synchronized int[] aheadBehind(int a, int b) {
+        int[] k = new int[2];
+        if (a == b) return k;
+        start(a, b);
+        while (nonStale > 0) {
+            int c = pop();
+            int f = flag[c] & (P1|P2|STALE);
+            if (f == P1) k[0]++;
+            else if (f == P2) k[1]++;
+            else f |= STALE;
+            paint(c, f);
+        }
+        clear(); return k;
+    }
+    int nonStale; //number of commits in heap without STALE
+    void start(int a, int b) {
+        nonStale = 0;
+        mark(a, P1); mark(b, P2);
+        enqueue(a); enqueue(b);
+    }
+    void paint(int c, int f) {
+        if ((f & STALE) != 0) mark(c, STALE);
+        for (int j=first[c]; j<first[c+1]; j++) {
+            int p = par[j], old = flag[p];
+            if ((old & f) == f) continue;
+            mark(p, f);
+            if ((old & QUEUED) == 0) enqueue(p);
+            else if ((old & STALE) == 0 && (f & STALE) != 0) nonStale--;
+        }
+    }
+    void enqueue(int c) {
+        mark(c, QUEUED);
+        if ((flag[c] & STALE) == 0) nonStale++;
+        push(c); up(hn-1);
+    }
+    int pop() {
+        int c = heap[0]; heap[0] = heap[--hn]; down(0);
+        flag[c] &= ~QUEUED;
+        if ((flag[c] & STALE) == 0) nonStale--;
+        return c;
+    }
+    void push(int c) {
+        if (hn == heap.length) heap = Arrays.copyOf(heap, 2*hn);
+        heap[hn++] = c;
+    }
+    void up(int i) {
+        int c = heap[i];
+        while (i > 0 && gen[heap[(i-1)/2]] < gen[c]) {
+            heap[i] = heap[(i-1)/2]; i = (i-1)/2;
+        }
+        heap[i] = c;
+    }
+    void down(int i) {
+        if (hn == 0) return;
+        int c = heap[i];
+        while (2*i+1 < hn) {
+            int j = 2*i+1;
+            if (j+1 < hn && gen[heap[j+1]] > gen[heap[j]]) j++;
+            if (gen[heap[j]] <= gen[c]) break;
+            heap[i] = heap[j]; i = j;
+        }
+        heap[i] = c;
+    }
+    void mark(int c, int f) {
+        if (flag[c] == 0) {
+            if (sn == seen.length) seen = Arrays.copyOf(seen, 2*sn);
+            seen[sn++] = c;
+        }
+        flag[c] |= f;
+    }
+    void clear() { //only the flags that were set
+        for (int i=0; i<sn; i++) flag[seen[i]] = 0;
+        sn = 0; hn = 0;
+    }
+}
@@ -0,0 +1,303 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * The CommitIndex class finds Commits by author, time, and message <p>
+ * Columns: SHA, time, and author id for each commit <br>
+ * positions sorted by time, and a list of positions for each word
+ * <p>
+ * Kept in .git/commit-index, only new commits are added on update()
+ *
+ * @see     Git#findCommits(String, long, long, String...)
+ */
+public class CommitIndex {
+
+    final Exec X;
+    final File file;
+    int n; //number of commits
+    byte[] id = new byte[20*1024];
+    long[] time = new long[1024];  //msec
+    int[] author = new int[1024];  //index in AUT
+    int[] byTime = new int[0];     //positions sorted by time
+    final List<String> AUT = new ArrayList<>();
+    final Map<String, Integer> autId = new HashMap<>();
+    final Map<String, Posting> TERM = new HashMap<>();
+    final Set<String> tips = new TreeSet<>(); //refs at the last update
+
+    final static int L = ObjectTable.L, MAGIC = 0x43494458; //"CIDX"
+
+    /** Reads the index kept in File f, if any */
+    public CommitIndex(Exec x, File f) {
+        X = x; file = f;
+        if (!f.isFile()) return;
+        try (DataInputStream in = new DataInputStream
+                (new BufferedInputStream(new FileInputStream(f), 1<<16))) {
+            read(in);
+        } catch (IOException e) { //start again
+            System.out.println(f+": "+e);
+            clear();
+        }
+    }
+    void clear() {
+        n = 0; AUT.clear(); autId.clear(); TERM.clear(); tips.clear();
+    }
+    /**
+     * Adds the commits reachable from the given tips but not from
+     * the tips of the last update, and saves the index if it has changed
+     * <p> returns the number of commits added
+     */
+    public int update(Collection<String> refs) {
+        Set<String> r = new TreeSet<>(refs);
+        if (r.equals(tips)) { sortByTime(); return 0; }
+        if (!allExist(tips) || !reachable(tips, r)) clear(); //rewritten
+        String[] LOG = {"git", "log", "-z", "--stdin",
+            "--format=%H%x00%at%x00%an <%ae>%x00%B"};
+        int k = n;
+        Process p = X.start(LOG);
+        try {
+            try (Writer w = new OutputStreamWriter(p.getOutputStream())) {
+                for (String h : r) w.write(h+"\n");
+                for (String h : tips) w.write("^"+h+"\n");
+            }
+            InputStream in = new BufferedInputStream(p.getInputStream(), 1<<16);
+            String h;
+            while ((h = field(in)) != null) {
+                long t = Long.parseLong(field(in));
+                String a = field(in), m = field(in);
+                add(h, t, a, m == null? "" : m); //empty message at the end
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            p.destroy();
+        }
+        tips.clear(); tips.addAll(r);
+        sortByTime(); save();
+        System.out.println((n-k)+" commits indexed  "+n+" in total");
+        return n-k;
+    }
+    boolean allExist(Set<String> a) {
+        try (Exec.Batch b = X.openBatchCheck()) {
+            b.requestAll(a);
+            for (int i=0; i<a.size(); i++)
+                if (b.next() == null) return false;
+        } catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
+    /** 
+     * true if all commits reachable from the old tips are reachable
+     * from the refs r -- false after a force-push, rebase, or a deleted
+     * branch, even if the reflog keeps the old commits
+     */
+    boolean reachable(Set<String> old, Set<String> r) {
+        if (old.isEmpty()) return true;
+        String[] REVLIST = {"git", "rev-list", "--stdin", "-n", "1"};
+        Process p = X.start(REVLIST);
+        try {
+            try (Writer w = new OutputStreamWriter(p.getOutputStream())) {
+                for (String h : old) w.write(h+"\n");
+                for (String h : r) w.write("^"+h+"\n");
+            }
+            try (BufferedReader in = new BufferedReader
+                    (new InputStreamReader(p.getInputStream()))) {
+                return in.readLine() == null; //no commit is left out
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            p.destroy();
+        }
+    }
+    /** reads up to the next NUL, returns null at the end */
+    static String field(InputStream in) throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) > 0) b.write(c);
+        if (c < 0 && b.size() == 0) return null;
+        return b.toString("UTF-8").trim();
+    }
+    void add(String h, long sec, String aut, String msg) {
+        if (n == time.length) {
+            id = Arrays.copyOf(id, 2*L*n);
+            time = Arrays.copyOf(time, 2*n);
+            author = Arrays.copyOf(author, 2*n);
+        }
+        byte[] a = new byte[L];
+        ObjectTable.toBytes(h, a, L);
+        System.arraycopy(a, 0, id, L*n, L);
+        time[n] = 1000*sec; author[n] = authorId(aut);
+        for (String w : words(msg)) posting(w).add(n);
+        n++;
+    }
+    int authorId(String a) {
+        Integer k = autId.get(a);
+        if (k != null) return k;
+        autId.put(a, AUT.size()); AUT.add(a);
+        return AUT.size()-1;
+    }
+    Posting posting(String w) {
+        Posting p = TERM.get(w);
+        if (p == null) { p = new Posting(); TERM.put(w, p); }
+        return p;
+    }
+    /** distinct lower-case words of letters and digits */
+    static Set<String> words(String s) {
+        Set<String> a = new LinkedHashSet<>();
+        for (String w : s.toLowerCase().split("[^\\p{L}\\p{N}]+"))
+            if (w.length() > 1) a.add(w);
+        return a;
+    }
+    void sortByTime() {
+        if (byTime.length == n) return;
+        long[] k = new long[n]; //time in sec, then position
+        for (int i=0; i<n; i++) k[i] = (time[i]/1000 << 28) | i;
+        Arrays.sort(k);
+        byTime = new int[n];
+        for (int i=0; i<n; i++) byTime[i] = (int)(k[i] & 0xFFFFFFF);
+    }
+
+    /** number of commits */
+    public int size() { return n; }
+    /** SHA of the commit at position i */
+    public String getHash(int i) {
+        return ObjectTable.getHash(ByteBuffer.wrap(id), i);
+    }
+    /** time of the commit at position i, in msec */
+    public long getTime(int i) { return time[i]; }
+    /** author of the commit at position i */
+    public String getAuthor(int i) { return AUT.get(author[i]); }
+    /**
+     * Returns the positions of the matching commits, newest first <p>
+     * commits in the same second come in the order of their positions <br>
+     * aut is a part of the author's name or e-mail, null for any author <br>
+     * from and to are in msec, to is not included <br>
+     * every term must occur in the message
+     */
+    public int[] search(String aut, long from, long to, String... terms) {
+        sortByTime();
+        BitSet A = null;
+        if (aut != null) {
+            A = new BitSet(); aut = aut.toLowerCase();
+            for (int i=0; i<AUT.size(); i++)
+                if (AUT.get(i).toLowerCase().contains(aut)) A.set(i);
+            if (A.isEmpty()) return new int[0];
+        }
+        int[] c = null; int m = 0; //candidates
+        List<Posting> P = new ArrayList<>();
+        for (String t : terms)
+            for (String w : words(t)) {
+                Posting p = TERM.get(w);
+                if (p == null) return new int[0];
+                P.add(p);
+            }
+        if (P.isEmpty()) { //binary search in byTime
+            int lo = lower(from), hi = lower(to);
+            c = Arrays.copyOfRange(byTime, lo, hi); m = c.length;
+        } else {
+            Collections.sort(P, new Comparator<Posting>() {
+                public int compare(Posting a, Posting b) { return a.n - b.n; }
+            });
+            c = Arrays.copyOf(P.get(0).a, P.get(0).n); m = c.length;
+            for (int j=1; j<P.size(); j++) m = P.get(j).retain(c, m);
+        }
+        int k = 0;
+        for (int i=0; i<m; i++) {
+            int x = c[i];
+            if (time[x] < from || time[x] >= to) continue;
+            if (A != null && !A.get(author[x])) continue;
+            c[k++] = x;
+        }
+        long[] s = new long[k]; //time, then reversed position
+        for (int i=0; i<k; i++) 
+            s[i] = (time[c[i]]/1000 << 28) | (0xFFFFFFF - c[i]);
+        Arrays.sort(s);
+        int[] r = new int[k]; //newest first
+        for (int i=0; i<k; i++) r[i] = 0xFFFFFFF - (int)(s[k-1-i] & 0xFFFFFFF);
+        return r;
+    }
+    /** first index in byTime whose time is not less than t */
+    int lower(long t) {
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int m = (lo + hi) >>> 1;
+            if (time[byTime[m]] < t) lo = m+1; else hi = m;
+        }
+        return lo;
+    }
+
+    /** writes the index into its File */
+    public void save() {
+        File tmp = new File(file.getPath()+".tmp");
+        try (DataOutputStream out = new DataOutputStream
+                (new BufferedOutputStream(new FileOutputStream(tmp), 1<<16))) {
+            out.writeInt(MAGIC); out.writeInt(n);
+            out.writeInt(tips.size());
+            for (String h : tips) out.writeUTF(h);
+            out.writeInt(AUT.size());
+            for (String a : AUT) out.writeUTF(a);
+            out.write(id, 0, L*n);
+            for (int i=0; i<n; i++) {
+                out.writeLong(time[i]); out.writeInt(author[i]);
+            }
+            out.writeInt(TERM.size());
+            for (String w : TERM.keySet()) {
+                Posting p = TERM.get(w);
+                out.writeUTF(w); writeVar(out, p.n);
+                for (int i=0; i<p.n; i++)
+                    writeVar(out, p.a[i] - (i==0? 0 : p.a[i-1]));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (file.exists() && !file.delete() || !tmp.renameTo(file))
+            throw new RuntimeException("cannot write "+file);
+    }
+    void read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("bad format");
+        n = in.readInt();
+        for (int i=in.readInt(); i>0; i--) tips.add(in.readUTF());
+        for (int i=in.readInt(); i>0; i--) authorId(in.readUTF());
+        int c = Math.max(n, 1024);
+        id = new byte[L*c]; in.readFully(id, 0, L*n);
+        time = new long[c]; author = new int[c];
+        for (int i=0; i<n; i++) {
+            time[i] = in.readLong(); author[i] = in.readInt();
+        }
+        for (int j=in.readInt(); j>0; j--) {
+            Posting p = posting(in.readUTF());
+            int k = readVar(in), x = 0;
+            for (int i=0; i<k; i++) { x += readVar(in); p.add(x); }
+        }
+    }
+    static void writeVar(DataOutputStream out, int v) throws IOException {
+        while ((v & ~127) != 0) { out.write((v & 127) | 128); v >>>= 7; }
+        out.write(v);
+    }
+    static int readVar(DataInputStream in) throws IOException {
+        int v = 0, s = 0, b;
+        do { b = in.readUnsignedByte(); v |= (b & 127) << s; s += 7; }
+        while ((b & 128) != 0);
+        return v;
+    }
+
+    /** sorted positions of the commits with a given word */
+    static class Posting {
+       int[] a = new int[4]; int n;
+       void add(int x) {
+           if (n == a.length) a = Arrays.copyOf(a, 2*n);
+           a[n++] = x;
+       }
+       /** keeps the first m items of c that are also here */
+       int retain(int[] c, int m) {
+           int k = 0, j = 0;
+           for (int i=0; i<m; i++) {
+               while (j < n && a[j] < c[i]) j++;
+               if (j < n && a[j] == c[i]) c[k++] = c[i];
+           }
+           return k;
+       }
+    }
+}
@@ -1,4 +1,5 @@
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.security.MessageDigest;
 
@@ -93,6 +94,12 @@ import java.security.MessageDigest;
         if (n <= 1) return new String[0]; 
         return new String(buf, 0, n).split("\n");         
     }
+    /** like execute(), for output ending each item with NUL (git ... -z) */
+    public String[] executeZ(String... a) { 
+        int n = exec(a);
+        if (n <= 0) return new String[0]; 
+        return new String(buf, 0, n, StandardCharsets.UTF_8).split("\0");
+    }
     void waitFor(Process p, int n, int d) { //nd msec
         InputStream in  = p.getInputStream();
         InputStream err = p.getErrorStream();
@@ -168,6 +175,119 @@ import java.security.MessageDigest;
     }
     /** Returns the name of the root directory */
     public String toString() { return root.getName(); }
+    /** Starts the command in a new Process -- its output can be streamed */
+    public Process start(String... a) {
+        ProcessBuilder b = new ProcessBuilder(a);
+        b.directory(root).redirectError(ProcessBuilder.Redirect.INHERIT);
+        try {
+            return b.start();
+        } catch (IOException x) {
+            throw new RuntimeException(x);
+        }
+    }
+    /** Starts a git cat-file --batch Process */
+    public Batch openBatch() { return new Batch(false); }
+    /** Starts a git cat-file --batch-check Process -- no data is read */
+    public Batch openBatchCheck() { return new Batch(true); }
+
+    /** 
+     * Batch keeps a single git cat-file --batch Process open <p>
+     * request() sends SHAs, next() reads the answers in the same order <br>
+     * data is streamed in pieces -- large objects are not kept in memory
+     */
+    public class Batch implements Closeable {
+       final Process p; final OutputStream out; final InputStream in;
+       final boolean check; //only the headers
+       String hash, type; long size, left; //current object
+       Batch(boolean check) { 
+          this.check = check;
+          p = start("git", "cat-file", check? "--batch-check" : "--batch");
+          out = new BufferedOutputStream(p.getOutputStream());
+          in = new BufferedInputStream(p.getInputStream(), 1<<16);
+       }
+       /** sends SHA h -- git starts working before flush() */
+       public void request(String h) throws IOException { 
+          out.write(h.getBytes()); out.write('\n');
+       }
+       /** 
+        * sends all SHAs in a separate Thread -- the caller can read 
+        * the answers at the same time, while git works ahead
+        */
+       public Thread requestAll(final Collection<String> a) {
+          Thread t = new Thread("Batch feeder") {
+             public void run() {
+                try {
+                   for (String h : a) request(h);
+                   flush();
+                } catch (IOException x) { //reader has closed this Batch
+                }
+             }
+          };
+          t.setDaemon(true); t.start(); return t;
+       }
+       /** makes sure that git has received all requests */
+       public void flush() throws IOException { out.flush(); }
+       /** 
+        * skips the rest of the current object and reads the next header <p>
+        * returns its type, or null if the object is missing
+        */
+       public String next() throws IOException {
+          if (type != null && !check) { skip(left); in.read(); } //LF
+          String[] a = readLine().split(" ");
+          hash = a[0];
+          if (a.length < 3) { type = null; size = 0; left = 0; return null; }
+          type = a[1]; size = Long.parseLong(a[2]); left = check? 0 : size;
+          return type;
+       }
+       /** SHA of the current object, as given by git */
+       public String hash() { return hash; }
+       /** size of the current object */
+       public long size() { return size; }
+       /** reads the rest of the current object into a byte array */
+       public byte[] read() throws IOException {
+          byte[] ba = new byte[(int)left]; int n = 0;
+          while (n < ba.length) {
+             int k = in.read(ba, n, ba.length-n);
+             if (k < 0) throw new EOFException();
+             n += k;
+          }
+          left = 0; return ba;
+       }
+       /** copies the rest of the current object into out */
+       public void copyTo(OutputStream o) throws IOException {
+          byte[] ba = new byte[1<<16];
+          while (left > 0) {
+             int k = in.read(ba, 0, (int)Math.min(ba.length, left));
+             if (k < 0) throw new EOFException();
+             o.write(ba, 0, k); left -= k;
+          }
+       }
+       void skip(long n) throws IOException {
+          while (n > 0) {
+             long k = in.skip(n);
+             if (k <= 0) throw new EOFException();
+             n -= k;
+          }
+          left = 0;
+       }
+       String readLine() throws IOException {
+          StringBuilder sb = new StringBuilder();
+          int c;
+          while ((c = in.read()) != '\n') {
+             if (c < 0) throw new EOFException("git cat-file --batch");
+             sb.append((char)c);
+          }
+          return sb.toString();
+       }
+       /** stops the Process */
+       public void close() {
+          try {
+             out.close();
+          } catch (IOException x) { //Process may be gone
+          }
+          p.destroy();
+       }
+    }
     
     static String toHex(byte b) {
         if (b > 15) return Integer.toHexString(b);
@@ -187,6 +307,32 @@ import java.security.MessageDigest;
     public static String toSHA(File f) throws IOException {
         return toSHA(toArray(new FileInputStream(f))); 
     }
+    /** 
+     * Returns the SHA of File f as a Blob -- f is read in pieces <p>
+     * a symbolic link is hashed by its target, as Git does <br>
+     * uses its own MessageDigest, so that threads can run in parallel
+     */
+    public static String calculateSHA(File f) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (java.security.NoSuchAlgorithmException x) {
+            throw new RuntimeException(x);
+        }
+        java.nio.file.Path p = f.toPath();
+        if (java.nio.file.Files.isSymbolicLink(p)) {
+            byte[] b = java.nio.file.Files.readSymbolicLink(p)
+                .toString().getBytes("UTF-8");
+            md.update(("blob "+b.length).getBytes()); md.update((byte)0);
+            return toHex(md.digest(b));
+        }
+        md.update(("blob "+f.length()).getBytes()); md.update((byte)0);
+        try (InputStream in = new FileInputStream(f)) {
+            byte[] b = new byte[1<<16]; int k;
+            while ((k = in.read(b)) > 0) md.update(b, 0, k);
+        }
+        return toHex(md.digest());
+    }
     /** Returns the SHA for a Git object -- basis for verification */
     public static String calculateSHA(String type, byte[] b) {
            byte[] a = (type+" "+b.length).getBytes();
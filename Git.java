@@ -2,6 +2,9 @@ import java.io.*;
 import java.util.*;
 import javax.swing.tree.TreeNode;
 import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
 
 /**
  *
@@ -18,14 +21,24 @@ public class Git {
     final File root; //git repository
     final Exec X;
     final Map<String, Entry> OBJ = new LinkedHashMap<>();
+    final Map<String, String> REF = new TreeMap<>(); //ref name -> SHA
+    final List<Listener> LIS = new ArrayList<>();
+    final boolean offHeap; //use TAB rather than reading all objects
+    ObjectTable TAB; //null unless offHeap
+    CommitGraph CG;  //read when first needed
+    CommitIndex CI;  //read when first needed
     int nc, nt, nb; //number of each object type in OBJ
     int count, pass; 
+    long stamp; //mtime and size of packs, loose folders, and refs
+    Exec.Batch SAVE; //Blobs in the order of Commit.saveTo(), null otherwise
+    Map<String, Long> UNIT = new HashMap<>(); //stamp of each idx and folder
     
     /**
      * Internal data uses full SHA <br>
      * SHA is abrreviated to M=6 chars in reports
      */
     final static public int M = 6; //abbrev default is 7 chars
+    final static int CHUNK = 256; //minimum objects for each loadAll() Process
     //final static String ABBREV = "--abbrev="+M; for cat-file command
 
     final static String COMMIT = "commit", TREE = "tree", BLOB = "blob",
@@ -36,7 +49,14 @@ public class Git {
     /** Reads a Git repository in the current folder */
     public Git() { this(new File(".")); }
     /** Reads a Git repository residing in File f */
-    public Git(File f) {
+    public Git(File f) { this(f, false); }
+    /** 
+     * Reads a Git repository residing in File f <p>
+     * if offHeap is true, objects are kept in an ObjectTable <br>
+     * and Entries are made only when they are requested
+     */
+    public Git(File f, boolean offHeap) {
+        this.offHeap = offHeap;
         try {
           root = f.isDirectory()? f.getCanonicalFile(): f.getParentFile();
 	    } catch (IOException x)  {
@@ -69,42 +89,91 @@ public class Git {
     /** Returns an array of Commits in the repo -- unused objects included */
     public Commit[] getAllCommits() {
         List<Commit> L = new ArrayList<>();
+        if (TAB != null) {
+            for (int i : TAB.select(COMMIT)) L.add((Commit)fromTable(i, false));
+            return L.toArray(new Commit[0]);
+        }
         for (Entry e : OBJ.values()) 
             if (e instanceof Commit) L.add((Commit)e);
         return L.toArray(new Commit[0]);
     }
     /** Returns an array of Entries in the repo -- unused objects included */
     public Entry[] getAllObjects() {
+        if (TAB != null) {
+            Entry[] a = new Entry[TAB.size()];
+            for (int i=0; i<a.length; i++) a[i] = fromTable(i, false);
+            return a;
+        }
         return OBJ.values().toArray(new Entry[0]);
     }
     /** Returns the Git object with given SHA */
     public Entry getObject(String h) {
+        if (TAB != null) {
+            Entry e = OBJ.get(h);
+            if (e != null) return e;
+            int i = TAB.find(h);
+            return i < 0? null : fromTable(i, true);
+        }
         if (h.length() < 40) h = X.getFullSHA(h);
         return OBJ.get(h);
     }
     /** Factory method to make Git objects -- not public */
     Entry newObject(String type, String h, int size) {
-            Entry e = null;
-            if (type.equals(COMMIT)) {
-                nc++; e = new Commit(h, size);
-            } else if (type.equals(TREE)) {
-                nt++; e = new Tree(h, size);
-            } else if (type.equals(BLOB)) {
-                nb++; e = new Blob(h, size);
-            }
+            if (type.equals(COMMIT)) nc++;
+            else if (type.equals(TREE)) nt++;
+            else if (type.equals(BLOB)) nb++;
+            return makeObject(type, h, size);
+    }
+    /** 
+     * makes the i<sup>th</sup> object in TAB -- already counted <p>
+     * kept in OBJ only if keep is true
+     */
+    Entry fromTable(int i, boolean keep) {
+            String h = TAB.getHash(i);
+            Entry e = OBJ.get(h);
+            if (e != null || OBJ.containsKey(h)) return e;
+            if (!keep) return newEntry(TAB.getType(i), h, TAB.getSize(i));
+            return makeObject(TAB.getType(i), h, TAB.getSize(i));
+    }
+    Entry newEntry(String type, String h, int size) {
+            if (type.equals(COMMIT)) return new Commit(h, size);
+            if (type.equals(TREE)) return new Tree(h, size);
+            if (type.equals(BLOB)) return new Blob(h, size);
+            return null;
+    }
+    Entry makeObject(String type, String h, int size) {
+            Entry e = newEntry(type, h, size);
             if (OBJ.put(h, e) != null) 
                 System.out.println("** COLLISION AT "+h+" **");
             return e;
     }
     void readObjects() {
+        nc = 0; nt = 0; nb = 0; OBJ.clear();
+        stamp = makeStamp(); UNIT = units(); readRefs();
+        if (offHeap) readTable(); else addObjects();
+    }
+    /** makes a new ObjectTable, returns the number of new objects */
+    int readTable() {
+        int n = TAB == null? 0 : TAB.size();
+        ObjectTable old = TAB;
+        TAB = new ObjectTable(X);
+        if (old != null) old.delete();
+        nc = TAB.nc; nt = TAB.nt; nb = TAB.nb;
+        return TAB.size() - n;
+    }
+    /** Returns the ObjectTable, or null if objects are on the heap */
+    public ObjectTable getObjectTable() { return TAB; }
+    /** adds the objects not in OBJ, returns the number added */
+    int addObjects() {
         String[] BATCH = 
         {"git", "cat-file", "--batch-check", "--batch-all-objects"};
-        nc = 0; nt = 0; nb = 0; OBJ.clear();
         String[] out = X.execute(BATCH);
         System.out.println(out.length+" objects read");
+        int n = OBJ.size();
         for (String s : out) try {
             String[] a = s.split(" ");
             String h = a[0]; String type = a[1]; 
+            if (OBJ.containsKey(h)) continue;
             int k = Integer.parseInt(a[2]);
             newObject(type, h, k);
 	    } catch (RuntimeException x)  {
@@ -112,14 +181,225 @@ public class Git {
         }
         System.out.print(OBJ.size()+" objects  "+nc+" commits  ");
         System.out.println(nt+" trees  "+nb+" blobs ");
+        return OBJ.size() - n;
+    }
+    /** 
+     * adds the given objects, using git cat-file --batch-check <p>
+     * into the delta of TAB if offHeap, otherwise into OBJ
+     */
+    int addObjects(Collection<String> ids) {
+        if (ids.isEmpty()) return 0;
+        int n = 0;
+        List<String> h = new ArrayList<>(), t = new ArrayList<>();
+        List<Integer> k = new ArrayList<>();
+        try (Exec.Batch b = X.openBatchCheck()) {
+            b.requestAll(ids);
+            for (int i=0; i<ids.size(); i++) {
+                String s = b.next();
+                if (s == null || OBJ.containsKey(b.hash())) continue;
+                if (offHeap) { 
+                    h.add(b.hash()); t.add(s); k.add((int)b.size()); 
+                } else { 
+                    newObject(s, b.hash(), (int)b.size()); n++; 
+                }
+            }
+        } catch (IOException x) {
+            throw new RuntimeException(x);
+        }
+        if (offHeap) { 
+            n = TAB.add(h, t, k); nc = TAB.nc; nt = TAB.nt; nb = TAB.nb; 
+        }
+        System.out.print(n+" new objects  "+nc+" commits  ");
+        System.out.println(nt+" trees  "+nb+" blobs ");
+        return n;
+    }
+    /** stamp of each .idx file and each loose object folder */
+    Map<String, Long> units() {
+        Map<String, Long> m = new HashMap<>();
+        File obj = new File(new File(root, ".git"), "objects");
+        for (File d : obj.listFiles()) 
+            if (d.getName().length() == 2) m.put(d.getName(), stamp(d, 0));
+        for (File f : PackIndex.idxFiles(root))
+            if (f.getName().endsWith(".idx")) m.put(f.getName(), stamp(f, 0));
+        return m;
+    }
+    /** 
+     * SHAs in new .idx files and changed loose folders 
+     * that are not known yet
+     */
+    Set<String> newObjects() {
+        Map<String, Long> m = units();
+        Set<String> ids = new LinkedHashSet<>();
+        List<File> packs = new ArrayList<>();
+        File obj = new File(new File(root, ".git"), "objects");
+        for (String u : m.keySet()) {
+            if (m.get(u).equals(UNIT.get(u))) continue;
+            if (u.length() > 2) {
+                packs.add(new File(new File(obj, "pack"), u)); continue;
+            }
+            String[] sa = new File(obj, u).list();
+            if (sa != null) for (String s : sa) 
+                if (s.length() == 38 && !isKnown(u+s)) ids.add(u+s);
+        }
+        UNIT = m;
+        PackIndex P = new PackIndex(packs.toArray(new File[0]));
+        for (int k=0; k<P.size(); k++) 
+            for (int i=0; i<P.count(k); i++) {
+                String h = P.getHash(k, i);
+                if (!isKnown(h)) ids.add(h);
+            }
+        return ids;
+    }
+    boolean isKnown(String h) {
+        return OBJ.containsKey(h) || (TAB != null && TAB.find(h) >= 0);
+    }
+    /** reads all refs into REF, returns the previous contents */
+    Map<String, String> readRefs() {
+        String[] SHOWREF = {"git", "show-ref", "--head"};
+        Map<String, String> old = new TreeMap<>(REF);
+        REF.clear();
+        for (String s : X.execute(SHOWREF)) {
+            int k = s.indexOf(32);
+            if (k > 0) REF.put(s.substring(k+1), s.substring(0, k));
+        }
+        return old;
+    }
+    /** 
+     * Combines mtime and size of pack files, loose object folders, 
+     * and refs -- any push or commit changes the result
+     */
+    long makeStamp() {
+        File git = new File(root, ".git");
+        File obj = new File(git, "objects");
+        long h = stamp(obj, 0);
+        for (File d : obj.listFiles()) //adding a file changes mtime of d
+            if (d.getName().length() == 2) h = stamp(d, h);
+        h = stampAll(new File(obj, "pack"), h);
+        h = stamp(new File(git, "HEAD"), h);
+        h = stamp(new File(git, "packed-refs"), h);
+        return stampAll(new File(git, "refs"), h);
+    }
+    static long stamp(File f, long h) {
+        h = 31*h + f.getName().hashCode();
+        h = 31*h + f.lastModified();
+        return 31*h + f.length();
+    }
+    static long stampAll(File dir, long h) { //recursive
+        File[] fa = dir.listFiles();
+        if (fa == null) return h;
+        Arrays.sort(fa);
+        for (File f : fa) 
+            h = f.isDirectory()? stampAll(f, h) : stamp(f, h);
+        return h;
+    }
+    /** 
+     * Reads only the objects added since the last call <p>
+     * only new .idx files and changed loose folders are read <br>
+     * Returns the number of new objects, or 0 if the repo is unchanged <br>
+     * Listeners are notified for each ref that is new, moved, or deleted
+     */
+    public int refresh() {
+        long s = makeStamp();
+        if (s == stamp) return 0;
+        stamp = s; CG = null;
+        Set<String> ids = newObjects();
+        int n = addObjects(ids); //no full reload
+        Map<String, String> old = readRefs();
+        for (String r : REF.keySet()) {
+            String h = old.remove(r);
+            if (!REF.get(r).equals(h)) fireRefUpdated(r, h, REF.get(r));
+        }
+        for (String r : old.keySet()) fireRefUpdated(r, old.get(r), null);
+        if (CI != null) CI.update(REF.values());
+        return n;
+    }
+    void fireRefUpdated(String r, String hOld, String hNew) {
+        for (Listener L : LIS) L.refUpdated(r, hOld, hNew);
+    }
+    /** Listener is notified by refresh() */
+    public void addListener(Listener L) { LIS.add(L); }
+    /** Listener is no longer notified */
+    public void removeListener(Listener L) { LIS.remove(L); }
+    /** Returns the SHA of each ref, such as refs/heads/master */
+    public Map<String, String> getRefs() { 
+        return Collections.unmodifiableMap(REF); 
+    }
+    /** Returns the CommitGraph of all refs -- read again after refresh() */
+    public CommitGraph getCommitGraph() {
+        if (CG == null) CG = new CommitGraph(X, REF.values());
+        return CG;
+    }
+    /** true if Commit a is reachable from Commit b */
+    public boolean isAncestor(Commit a, Commit b) {
+        return getCommitGraph().isAncestor(a.hash, b.hash);
+    }
+    /** Returns the best common ancestor of a and b, or null */
+    public Commit mergeBase(Commit a, Commit b) {
+        String h = getCommitGraph().mergeBase(a.hash, b.hash);
+        return h == null? null : getCommit(h);
+    }
+    /** Compares the working folder and the index with Commit c */
+    public Status status(Commit c) {
+        c = getCommit(c.hash);
+        return new Status(X, c.hTree);
+    }
+    /** Compares the working folder and the index with HEAD -- no refresh */
+    public Status status() {
+        String[] REVPARSE = 
+        {"git", "rev-parse", "-q", "--verify", "HEAD^{tree}"};
+        String[] sa = X.execute(REVPARSE); //empty before the first commit
+        return new Status(X, sa.length == 0? null : sa[0].trim());
+    }
+    /** Returns the CommitIndex kept in .git/commit-index */
+    public CommitIndex getCommitIndex() {
+        if (CI != null) return CI;
+        File f = new File(new File(root, ".git"), "commit-index");
+        CI = new CommitIndex(X, f); CI.update(REF.values());
+        return CI;
+    }
+    /** 
+     * Returns the Commits by author aut in the given time range, 
+     * whose messages contain all of the terms -- newest first <p>
+     * aut may be null, from and to are in msec (to is not included)
+     */
+    public Commit[] findCommits(String aut, long from, long to, String... terms) {
+        CommitIndex x = getCommitIndex();
+        int[] a = x.search(aut, from, to, terms);
+        List<String> ids = new ArrayList<>();
+        for (int i : a) ids.add(x.getHash(i));
+        return getCommits(ids).toArray(new Commit[0]);
+    }
+    /** Returns the Commits with given SHAs, read over one git process */
+    List<Commit> getCommits(List<String> ids) {
+        List<String> todo = new ArrayList<>();
+        for (String h : ids) {
+            Entry e = getObject(h);
+            if (!(e instanceof Commit) || ((Commit)e).name == null) todo.add(h);
+        }
+        if (!todo.isEmpty()) try (Exec.Batch b = X.openBatch()) {
+            b.requestAll(todo);
+            for (String h : todo) {
+                if (!COMMIT.equals(b.next())) 
+                    throw new RuntimeException(h+" is not a commit");
+                byte[] ba = b.read();
+                Commit c = (Commit)getObject(h);
+                if (c == null) c = (Commit)newObject(COMMIT, h, ba.length);
+                parse(c, ba);
+            }
+        } catch (IOException x) {
+            throw new RuntimeException(x);
+        }
+        List<Commit> L = new ArrayList<>();
+        for (String h : ids) L.add((Commit)getObject(h));
+        return L;
     }
     Blob getBlob(String h) {
-        Blob e = (Blob)OBJ.get(h);
+        Blob e = (Blob)getObject(h);
         if (e != null) return e;
         return (Blob)newObject(BLOB, h, X.getObjectSize(h));
     }
     Tree getTree(String h) {
-        Tree e = (Tree)OBJ.get(h);
+        Tree e = (Tree)getObject(h);
         if (e != null) return e;
         return (Tree)newObject(TREE, h, 0); //size ignored
     }
@@ -130,6 +410,11 @@ public class Git {
         byte[] ba = X.getObjectData(h); 
         if (c == null) 
             c = (Commit)newObject(COMMIT, h, ba.length);
+        parse(c, ba);
+        return c;
+    }
+    /** sets the fields of Commit c from its data */
+    void parse(Commit c, byte[] ba) {
         String[] a = new String(ba).split("\n");
         int p = 0; String tree = null;
         if (a[p].startsWith(TREE)) {
@@ -147,31 +432,35 @@ public class Git {
             int j = a[p].indexOf(">")+1;
             if (j <= 7) j = a[p].length();
             author = a[p].substring(7, j); 
-            int k = a[p].length();
-            int i = k - 16;
-            while (a[p].charAt(i) == ' ') i++;
-            String tStr = a[p].substring(i, k-6);
-            time = 1000*Long.parseLong(tStr); //msec
-            p++;
+            time = toMsec(a[p]); p++;
         }
+        long cTime = time;
+        if (a[p].startsWith("committer")) { cTime = toMsec(a[p]); p++; }
         while (a[p].length() > 0) p++;
         String name = a[p+1];
         
-        c.name = name; c.hTree = tree; c.time = time; 
+        c.name = name; c.hTree = tree; c.time = time; c.cTime = cTime;
         c.hPar1 = parent; c.hPar2 = par2; c.author = author;
         c.date = FORM.format(time);
         //System.out.println(c); 
-        return c;
+    }
+    /** time in msec from a line that ends with "seconds +zone" */
+    static long toMsec(String s) {
+        int k = s.length();
+        int i = k - 16;
+        while (s.charAt(i) == ' ') i++;
+        return 1000*Long.parseLong(s.substring(i, k-6));
     }
     Tree makeTree(String h, String nn) {
-        String[] LSTREE = {"git", "ls-tree", "-l", h};
-        String[] sa = X.execute(LSTREE); 
+        String[] LSTREE = {"git", "ls-tree", "-l", "-z", h};
         Tree t = getTree(h); //t.data.clear();
-        if (t.data.size() > 0) return t;
+        if (t.data.size() > 0) return t; //made before or prefetched
+        String[] sa = X.executeZ(LSTREE); //names are not quoted
         for (String s : sa) { 
             int k = s.indexOf(32);   //first space
             int i = s.indexOf(32, k+1); //second space
             int j = s.indexOf(9, i+1);  //find TAB
+            String mode = s.substring(0, k);
             String type = s.substring(k+1, i);
             String hash = s.substring(i+1, i+41);
             //String size = s.substring(i+41, j); not used
@@ -182,14 +471,152 @@ public class Git {
             } else if (type.equals(BLOB)) {
                 x = getBlob(hash);
             } else continue;  //submodules not implemented
-            t.add(x, name); 
+            t.add(x, name, mode); 
         }
         System.out.println(trim(h)+" "+nn+": "+sa.length);
         return t;
     }
+    /** 
+     * Loads the objects in one batched pass, in the order of pack files <p>
+     * duplicate SHAs are skipped, several git processes share the work <br>
+     * L is called from those threads as soon as each object arrives
+     */
+    public void loadAll(Collection<String> ids, final Loader L) {
+        List<String> a = new PackIndex(root).sort(ids);
+        if (a.isEmpty()) return;
+        int k = Math.min(Runtime.getRuntime().availableProcessors(),
+                         (a.size()+CHUNK-1)/CHUNK);
+        int m = (a.size()+k-1)/k; //consecutive objects for each Process
+        List<Callable<Object>> work = new ArrayList<>();
+        for (int i=0; i<a.size(); i+=m) {
+            final List<String> sub = a.subList(i, Math.min(i+m, a.size()));
+            work.add(new Callable<Object>() {
+                public Object call() throws IOException {
+                    try (Exec.Batch b = X.openBatch()) {
+                        b.requestAll(sub);
+                        for (String h : sub) {
+                            String t = b.next();
+                            L.loaded(h, t, t == null? null : b.read());
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        ExecutorService ex = Executors.newFixedThreadPool(work.size());
+        try {
+            for (Future<Object> f : ex.invokeAll(work)) f.get();
+        } catch (InterruptedException x) {
+            throw new RuntimeException(x);
+        } catch (ExecutionException x) {
+            throw new RuntimeException(x.getCause());
+        } finally {
+            ex.shutdown();
+        }
+    }
+    /** 
+     * loads Tree t down to depth -- one loadAll() for each level <p>
+     * Blob data up to Exec.MB is loaded only if blobs is true
+     */
+    void prefetch(Tree t, int depth, boolean blobs) {
+        Map<String, Tree> level = new LinkedHashMap<>();
+        level.put(t.hash, t);
+        final Map<String, Blob> bm = new HashMap<>();
+        for (int d=0; d<depth && !level.isEmpty(); d++) {
+            final Map<String, byte[]> raw = new ConcurrentHashMap<>();
+            List<String> a = new ArrayList<>();
+            for (Tree x : level.values()) if (x.data.isEmpty()) a.add(x.hash);
+            loadAll(a, new Loader() {
+                public void loaded(String h, String type, byte[] data) {
+                    if (data != null) raw.put(h, data);
+                }
+            });
+            Map<String, Blob> unknown = new HashMap<>();
+            for (Tree x : level.values()) 
+                if (raw.containsKey(x.hash)) fill(x, raw.get(x.hash), unknown);
+            setSizes(unknown);
+            Map<String, Tree> next = new LinkedHashMap<>();
+            for (Tree x : level.values()) {
+                for (Entry e : x.data) 
+                    if (e instanceof Tree) next.put(e.hash, (Tree)e);
+                    else if (blobs && ((Blob)e).data == null 
+                             && e.size <= Exec.MB) bm.put(e.hash, (Blob)e);
+            }
+            System.out.println("level "+d+": "+level.size()+" trees");
+            level = next;
+        }
+        if (!blobs) return;
+        loadAll(bm.keySet(), new Loader() {
+            public void loaded(String h, String type, byte[] data) {
+                if (data == null) return;
+                Blob b = bm.get(h); 
+                b.data = data;
+            }
+        });
+        System.out.println(bm.size()+" blobs loaded");
+    }
+    /** adds the SHAs of the Blobs under Tree t, in the order of saveTo() */
+    void collectBlobs(Tree t, List<String> a) {
+        for (Entry e : t.data) 
+            if (e instanceof Tree) collectBlobs((Tree)e, a);
+            else a.add(e.hash);
+    }
+    /** sets the sizes of Blobs made by fill(), using --batch-check */
+    void setSizes(Map<String, Blob> m) {
+        if (m.isEmpty()) return;
+        try (Exec.Batch b = X.openBatchCheck()) {
+            b.requestAll(m.keySet());
+            for (int i=0; i<m.size(); i++) 
+                if (b.next() != null) m.get(b.hash()).size = (int)b.size();
+        } catch (IOException x) {
+            throw new RuntimeException(x);
+        }
+    }
+    /** 
+     * adds the children of Tree t from raw data: mode SP name NUL SHA <p>
+     * Blobs that are not known yet are put into unknown, without size
+     */
+    void fill(Tree t, byte[] a, Map<String, Blob> unknown) {
+        int p = 0;
+        while (p < a.length) {
+            int s = p; while (a[s] != ' ') s++;
+            int e = s; while (a[e] != 0) e++;
+            String mode = new String(a, p, s-p);
+            if (mode.length() < 6) mode = "0"+mode; //40000 for a tree
+            String name = new String(a, s+1, e-s-1, StandardCharsets.UTF_8);
+            String h = ObjectTable.getHash
+                (ObjectTable.slice(ByteBuffer.wrap(a), e+1), 0);
+            p = e+1+ObjectTable.L;
+            Entry x = null;
+            if (mode.equals("040000")) {
+                x = getTree(h);
+            } else if (mode.equals("160000")) {
+                continue;  //submodules not implemented
+            } else {
+                x = getObject(h);
+                if (x == null) {
+                    x = newObject(BLOB, h, 0); unknown.put(h, (Blob)x);
+                }
+            }
+            t.add(x, name, mode); 
+        }
+    }
     /** Returns the name of the root directory */
     public String toString() { return root.getName(); }
 
+    /** Loader receives each object read by loadAll() -- type is null if missing */
+    public interface Loader {
+       void loaded(String h, String type, byte[] data);
+    }
+
+    /** 
+     * Listener is notified when refresh() finds a changed ref <p>
+     * hOld is null for a new ref, hNew is null for a deleted ref
+     */
+    public interface Listener {
+       void refUpdated(String ref, String hOld, String hNew);
+    }
+
     /** Branch has a name and the SHA of the Commit it marks */
     public class Branch {
        final String hLast, name; Commit last;
@@ -207,6 +634,12 @@ public class Git {
        public String toString() { return name+" "+trim(hLast); }
        /** Returns the latest Commit in this Branch */
        public Commit getLatestCommit() { return last; }
+       /** true if Commit c is reachable from this Branch */
+       public boolean contains(Commit c) { return isAncestor(c, last); }
+       /** {commits only in this Branch, commits only in Branch b} */
+       public int[] aheadBehind(Branch b) {
+          return getCommitGraph().aheadBehind(last.hash, b.last.hash);
+       }
        /** Returns an array of Commits in this Branch -- backwards */
        public Commit[] printAllCommits() {
           List<Commit> L = new ArrayList<>();
@@ -248,6 +681,7 @@ public class Git {
     public class Commit extends Entry {
        String hTree; //Tree data; 
        long time; String date;
+       long cTime; //committer time in msec, used in archives
        String name, hPar1, hPar2, author;
        Commit(String h, int k) { super(COMMIT, h, k); }
        /** returns the actual data (folder structure) in this Commit */
@@ -287,11 +721,46 @@ public class Git {
        }
        /** returns SHA and name */
        public String toString() { return trim(hash)+" -- "+name; }
-       /**  */
+       /** 
+        * streams the Tree as a tar archive -- out is not closed <p>
+        * entries get the committer time, as in git archive
+        */
+       public void writeTar(OutputStream out) { 
+           try {
+               Commit c = getCommit(hash); //parsed
+               new Archive(X, c.loadTree(), c.cTime).writeTar(out);
+           } catch (IOException x) {
+               throw new RuntimeException(x);
+           }
+       }
+       /** streams the Tree as a zip archive -- out is not closed */
+       public void writeZip(OutputStream out) { 
+           try {
+               Commit c = getCommit(hash); //parsed
+               new Archive(X, c.loadTree(), c.cTime).writeZip(out);
+           } catch (IOException x) {
+               throw new RuntimeException(x);
+           }
+       }
+       /** all Trees under this Commit, read from raw data in batches */
+       Tree loadTree() {
+           Tree t = Git.this.getTree(getCommit(hash).hTree);
+           prefetch(t, Integer.MAX_VALUE, false);
+           return t;
+       }
+       /** Blobs are streamed one at a time through a single Batch */
        public void saveTo(File dir, String nam) { 
            System.out.println(this);
            count = 0; pass = 0; 
-           getTree().saveTo(dir, nam);
+           Tree t = loadTree();
+           List<String> a = new ArrayList<>();
+           collectBlobs(t, a);
+           try (Exec.Batch b = X.openBatch()) {
+               SAVE = b; b.requestAll(a);
+               t.saveTo(dir, nam);
+           } finally {
+               SAVE = null;
+           }
            System.out.print(count+" blobs ");
            System.out.println(dir==null? pass+" OK" : " written");
        }
@@ -305,17 +774,25 @@ public class Git {
     public class Tree extends Entry {
        final List<Entry> data = new ArrayList<>();
        final List<String> name = new ArrayList<>();
+       final List<String> mode = new ArrayList<>();
        Tree(String h, int k) { super(TREE, h, k); }
-       void add(Entry e, String n) {
-           data.add(e); name.add(n); 
+       void add(Entry e, String n, String m) {
+           data.add(e); name.add(n); mode.add(m); 
        } 
        public String toString() {
            return trim(hash)+":  ["+name.size()+"]  "; 
        }
        /** get the i<sup>th</sup> Name */
        public String getNameAt(int i) { return name.get(i); }
+       /** get the i<sup>th</sup> mode, such as 100644 or 040000 */
+       public String getModeAt(int i) { return mode.get(i); }
        /** get the i<sup>th</sup> Entry */
        public Entry getChildAt(int i) { return data.get(i); }
+       /** 
+        * Loads the sub-Trees down to depth and all of their Blobs <p>
+        * one batch for each level, rather than one git call per object
+        */
+       public void prefetch(int depth) { Git.this.prefetch(this, depth, true); }
        /** number of Entries under this Tree */
        public int getChildCount() { return data.size(); }
        /**  */
@@ -374,6 +851,15 @@ public class Git {
        /** prints true if data size and SHA come out as expected */
        public void saveTo(File dir, String nam) {
            count++; 
+           if (SAVE != null) try { //Commit.saveTo() sent the requests
+               if (SAVE.next() != null) {
+                   if (size == 0) size = (int)SAVE.size(); //1 is kept as 0
+                   byte[] d = SAVE.read();
+                   if (data == null) data = d;
+               }
+           } catch (IOException x) {
+               throw new RuntimeException(x);
+           }
            if (data == null) data = X.getObjectData(hash);
            boolean OK = (data.length == size);
            if (OK && size > 0)
@@ -0,0 +1,248 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * The ObjectTable class keeps all Git objects off the heap <p>
+ * SHA, type, and size are three memory-mapped columns sorted by SHA <br>
+ * Git.Entry objects are made only when they are requested
+ * <p>
+ * Objects added later are kept in small sorted arrays (the delta) <br>
+ * so that a refresh does not read all objects again
+ *
+ * @see     Git#Git(File, boolean)
+ */
+public class ObjectTable {
+
+    final int n; //number of objects
+    final ByteBuffer id, type, size; //20, 1, and 4 bytes per object
+    final File[] f = new File[3]; //temp files of the columns
+    //delta: objects added after the columns were made, sorted by SHA
+    byte[] dId = new byte[0], dType = new byte[0]; int[] dSize = new int[0];
+    int dn;
+    int nc, nt, nb; //number of each object type
+
+    /** codes used in the type column */
+    final static byte COMMIT = 1, TREE = 2, BLOB = 3, TAG = 4;
+    final static String[] TYPE = {null, "commit", "tree", "blob", "tag"};
+    final static int L = 20; //bytes in SHA
+    final static char[] HEX = "0123456789abcdef".toCharArray();
+    /** column files that could not be deleted yet (mapped on Windows) */
+    final static List<File> STALE = new ArrayList<>();
+
+    /** Reads all objects in the repo -- output of git is streamed */
+    public ObjectTable(Exec x) {
+        String[] BATCH =
+        {"git", "cat-file", "--batch-check", "--batch-all-objects"};
+        int k = 0;
+        try {
+            for (int i=0; i<3; i++) {
+                f[i] = File.createTempFile("objects", ".col");
+                f[i].deleteOnExit();
+            }
+            Process p = x.start(BATCH);
+            try (BufferedReader in = new BufferedReader
+                    (new InputStreamReader(p.getInputStream()));
+                 DataOutputStream a = open(f[0]);
+                 DataOutputStream b = open(f[1]);
+                 DataOutputStream c = open(f[2])) {
+                byte[] prev = new byte[L], h = new byte[L];
+                String s;
+                while ((s = in.readLine()) != null) {
+                    int i = s.indexOf(32), j = s.indexOf(32, i+1);
+                    if (i != 2*L || j < 0) continue; //missing or bad line
+                    toBytes(s, h, L);
+                    if (k > 0 && compare(h, prev) <= 0)
+                        throw new RuntimeException("not sorted at "+s);
+                    byte t = toCode(s.substring(i+1, j));
+                    if (t == COMMIT) nc++;
+                    else if (t == TREE) nt++;
+                    else if (t == BLOB) nb++;
+                    a.write(h); b.write(t);
+                    c.writeInt(Integer.parseInt(s.substring(j+1)));
+                    byte[] tmp = prev; prev = h; h = tmp; k++;
+                }
+            } finally {
+                p.destroy();
+            }
+            n = k;
+            id = map(f[0]); type = map(f[1]); size = map(f[2]);
+        } catch (IOException e) {
+            delete();
+            throw new RuntimeException(e);
+        }
+        System.out.print(n+" objects  "+nc+" commits  ");
+        System.out.println(nt+" trees  "+nb+" blobs  off-heap");
+    }
+    /** 
+     * Deletes the column files -- called when the table is replaced <p>
+     * a file that is still mapped is kept in STALE and tried again later
+     */
+    public void delete() {
+        synchronized (STALE) {
+            for (File g : f) if (g != null) STALE.add(g);
+            Iterator<File> i = STALE.iterator();
+            while (i.hasNext()) {
+                File g = i.next();
+                if (g.delete() || !g.exists()) i.remove();
+            }
+        }
+    }
+    static DataOutputStream open(File f) throws IOException {
+        return new DataOutputStream
+            (new BufferedOutputStream(new FileOutputStream(f), 1<<16));
+    }
+    /** the part of b that starts at p */
+    static ByteBuffer slice(ByteBuffer b, int p) {
+        ByteBuffer d = b.duplicate(); d.position(p); return d.slice();
+    }
+    static ByteBuffer map(File f) throws IOException {
+        try (RandomAccessFile r = new RandomAccessFile(f, "r")) {
+            FileChannel c = r.getChannel();
+            return c.map(FileChannel.MapMode.READ_ONLY, 0, c.size());
+        }
+    }
+    /** 
+     * Adds the objects that are not in the table yet -- 
+     * three arrays of the same length <p>
+     * the columns are not touched, indices of the delta start at n
+     */
+    public int add(List<String> h, List<String> t, List<Integer> k) {
+        final List<Integer> a = new ArrayList<>();
+        for (int j=0; j<h.size(); j++) if (find(h.get(j)) < 0) a.add(j);
+        if (a.isEmpty()) return 0;
+        int m = dn + a.size();
+        String[] hs = new String[m]; 
+        byte[] ts = new byte[m]; int[] ks = new int[m];
+        for (int j=0; j<dn; j++) {
+            hs[j] = getHash(n+j); ts[j] = dType[j]; ks[j] = dSize[j];
+        }
+        for (int j=0; j<a.size(); j++) {
+            int x = a.get(j);
+            hs[dn+j] = h.get(x); ts[dn+j] = toCode(t.get(x)); 
+            ks[dn+j] = k.get(x);
+            if (ts[dn+j] == COMMIT) nc++;
+            else if (ts[dn+j] == TREE) nt++;
+            else if (ts[dn+j] == BLOB) nb++;
+        }
+        Integer[] ord = new Integer[m];
+        for (int j=0; j<m; j++) ord[j] = j;
+        final String[] key = hs;
+        Arrays.sort(ord, new Comparator<Integer>() {
+            public int compare(Integer x, Integer y) { 
+                return key[x].compareTo(key[y]); 
+            }
+        });
+        byte[] ni = new byte[L*m], ny = new byte[m]; int[] ns = new int[m];
+        byte[] b = new byte[L];
+        for (int j=0; j<m; j++) {
+            toBytes(hs[ord[j]], b, L);
+            System.arraycopy(b, 0, ni, L*j, L);
+            ny[j] = ts[ord[j]]; ns[j] = ks[ord[j]];
+        }
+        dId = ni; dType = ny; dSize = ns; dn = m;
+        return a.size();
+    }
+    /** number of objects */
+    public int size() { return n + dn; }
+    /** number of objects of the given type -- a scan of the type column */
+    public int count(String t) {
+        byte b = toCode(t); int k = 0;
+        for (int i=0; i<n; i++) if (type.get(i) == b) k++;
+        for (int i=0; i<dn; i++) if (dType[i] == b) k++;
+        return k;
+    }
+    /** 
+     * indices of the objects of the given type <p>
+     * in SHA order in the columns, then in the delta
+     */
+    public int[] select(String t) {
+        byte b = toCode(t);
+        int[] a = new int[count(t)]; int k = 0;
+        for (int i=0; i<n; i++) if (type.get(i) == b) a[k++] = i;
+        for (int i=0; i<dn; i++) if (dType[i] == b) a[k++] = n+i;
+        return a;
+    }
+    /** SHA of the i<sup>th</sup> object */
+    public String getHash(int i) { 
+        return i < n? getHash(id, i) : getHash(ByteBuffer.wrap(dId), i-n); 
+    }
+    static String getHash(ByteBuffer id, int i) {
+        char[] c = new char[2*L];
+        for (int j=0; j<L; j++) {
+            int b = id.get(L*i+j) & 0xFF;
+            c[2*j] = HEX[b >> 4]; c[2*j+1] = HEX[b & 15];
+        }
+        return new String(c);
+    }
+    /** type of the i<sup>th</sup> object */
+    public String getType(int i) { 
+        return TYPE[i < n? type.get(i) : dType[i-n]]; 
+    }
+    /** size of the i<sup>th</sup> object */
+    public int getSize(int i) { return i < n? size.getInt(4*i) : dSize[i-n]; }
+    /**
+     * index of the object with SHA h, which may be abbreviated <p>
+     * returns -1 if h is not found or if it is ambiguous
+     */
+    public int find(String h) { 
+        if (dn == 0) return find(id, n, h);
+        int[] a = match(id, n, h), b = match(ByteBuffer.wrap(dId), dn, h);
+        if (a[1] + b[1] != 1) return -1;
+        return a[1] == 1? a[0] : n + b[0];
+    }
+    /** binary search in a column of n SHAs */
+    static int find(ByteBuffer id, int n, String h) {
+        int[] a = match(id, n, h);
+        return a[1] == 1? a[0] : -1;
+    }
+    /** {first index with prefix h, number of matches (0, 1, or 2)} */
+    static int[] match(ByteBuffer id, int n, String h) {
+        int d = Math.min(h.length(), 2*L); //hex digits
+        byte[] key = new byte[L];
+        toBytes(h, key, d/2);
+        if (d % 2 == 1) key[d/2] = (byte)(digit(h.charAt(d-1)) << 4);
+        int lo = 0, hi = n; //first index with prefix >= key
+        while (lo < hi) {
+            int m = (lo + hi) >>> 1;
+            if (compare(id, m, key, d) < 0) lo = m+1; else hi = m;
+        }
+        if (lo == n || compare(id, lo, key, d) != 0) return new int[] {lo, 0};
+        if (lo+1 < n && compare(id, lo+1, key, d) == 0) 
+            return new int[] {lo, 2};
+        return new int[] {lo, 1};
+    }
+    /** compares the first d hex digits of object i with key */
+    static int compare(ByteBuffer id, int i, byte[] key, int d) {
+        int p = L*i;
+        for (int j=0; j<d/2; j++) {
+            int c = (id.get(p+j) & 0xFF) - (key[j] & 0xFF);
+            if (c != 0) return c;
+        }
+        if (d % 2 == 0) return 0;
+        return (id.get(p+d/2) & 0xF0) - (key[d/2] & 0xF0);
+    }
+    static int compare(byte[] a, byte[] b) {
+        for (int j=0; j<L; j++) {
+            int c = (a[j] & 0xFF) - (b[j] & 0xFF);
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+    static byte toCode(String t) {
+        for (byte b=1; b<TYPE.length; b++)
+            if (TYPE[b].equals(t)) return b;
+        return 0;
+    }
+    static int digit(char c) {
+        int k = Character.digit(c, 16);
+        if (k < 0) throw new IllegalArgumentException("not hex: "+c);
+        return k;
+    }
+    /** converts the first 2m hex digits of s into m bytes */
+    static void toBytes(String s, byte[] b, int m) {
+        for (int j=0; j<m; j++)
+            b[j] = (byte)(digit(s.charAt(2*j)) << 4 | digit(s.charAt(2*j+1)));
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * The PackIndex class finds where objects are stored in pack files <p>
+ * Reads the .idx files (version 2) in .git/objects/pack <br>
+ * so that a batch of objects can be read in the order of the packs
+ *
+ * @see     Git#loadAll(Collection, Git.Loader)
+ */
+public class PackIndex {
+
+    final List<ByteBuffer> IDX = new ArrayList<>();
+    final List<ByteBuffer> SHA = new ArrayList<>(); //sorted, in each idx
+    final List<Integer> NUM = new ArrayList<>();    //objects in each idx
+
+    final static int L = ObjectTable.L;
+
+    /** Maps all .idx files of the repo in File root */
+    public PackIndex(File root) { this(idxFiles(root)); }
+    /** Maps the given .idx files */
+    public PackIndex(File[] fa) {
+        for (File f : fa) try {
+            if (!f.getName().endsWith(".idx")) continue;
+            ByteBuffer b = ObjectTable.map(f);
+            if (b.getInt(0) != 0xff744f63 || b.getInt(4) != 2) continue;
+            int n = b.getInt(8 + 4*255); //last item of fan-out table
+            IDX.add(b); NUM.add(n);
+            SHA.add(ObjectTable.slice(b, 8 + 4*256));
+        } catch (IOException x) { //skip this pack
+        }
+    }
+    /** .idx files of the repo in File root, sorted by name */
+    static File[] idxFiles(File root) {
+        File d = new File(root, ".git/objects/pack");
+        File[] fa = d.listFiles();
+        if (fa == null) return new File[0];
+        Arrays.sort(fa);
+        return fa;
+    }
+    /** number of packs */
+    public int size() { return IDX.size(); }
+    /** number of objects in the k<sup>th</sup> pack */
+    public int count(int k) { return NUM.get(k); }
+    /** SHA of the i<sup>th</sup> object in the k<sup>th</sup> pack */
+    public String getHash(int k, int i) {
+        return ObjectTable.getHash(SHA.get(k), i);
+    }
+    /** {pack, offset} of the object with SHA h, or null if not packed */
+    public long[] locate(String h) {
+        for (int k=0; k<IDX.size(); k++) {
+            int n = NUM.get(k);
+            int i = ObjectTable.find(SHA.get(k), n, h);
+            if (i < 0) continue;
+            ByteBuffer b = IDX.get(k);
+            int p = 8 + 4*256 + (L+4)*n; //offset table
+            long off = b.getInt(p + 4*i) & 0xFFFFFFFFL;
+            if (off >= 0x80000000L) //index in the 64-bit table
+                off = b.getLong(p + 4*n + 8*(int)(off & 0x7fffffff));
+            return new long[] {k, off};
+        }
+        return null;
+    }
+    /**
+     * Returns the distinct SHAs in the order of packs and offsets <p>
+     * loose objects come last
+     */
+    public List<String> sort(Collection<String> ids) {
+        List<String> a = new ArrayList<>(new LinkedHashSet<>(ids));
+        final Map<String, long[]> m = new HashMap<>();
+        for (String h : a) {
+            long[] x = locate(h);
+            m.put(h, x != null? x : new long[] {IDX.size(), 0});
+        }
+        Collections.sort(a, new Comparator<String>() {
+            public int compare(String s, String t) {
+                long[] x = m.get(s), y = m.get(t);
+                if (x[0] != y[0]) return Long.compare(x[0], y[0]);
+                return Long.compare(x[1], y[1]);
+            }
+        });
+        return a;
+    }
+}
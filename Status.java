@@ -0,0 +1,264 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The Status class compares the working folder with a Commit <p>
+ * .git/index (version 2, 3, or 4) is the middle step: <br>
+ * a file whose stat data (mtime, size, inode) has not changed is trusted,
+ * other files are hashed in parallel <br>
+ * sub-folders whose cached tree in the index equals the Tree are skipped
+ * <p>
+ * Untracked files and filters such as autocrlf are not considered
+ *
+ * @see     Git#status(Git.Commit)
+ */
+public class Status {
+
+    final Exec X;
+    final File root;
+    /** staged: the index differs from the Commit */
+    final List<String> added = new ArrayList<>(),
+        deleted = new ArrayList<>(), modified = new ArrayList<>();
+    /** not staged: the working folder differs from the index */
+    final List<String> changed = new ArrayList<>(),
+        missing = new ArrayList<>(), unmerged = new ArrayList<>();
+    int hashed; //number of files read from disk
+
+    //index data -- path -> {SHA, mode}
+    final Map<String, String[]> IDX = new TreeMap<>();
+    final Map<String, String> cache = new HashMap<>(); //folder -> SHA
+    final Set<String> seen = new HashSet<>(), pruned = new HashSet<>();
+
+    final static int L = ObjectTable.L;
+    final static String GITLINK = "160000";
+
+    /** Compares the working folder and the index with Tree hTree */
+    public Status(Exec x, String hTree) {
+        X = x; root = x.root;
+        File f = new File(root, ".git/index");
+        try {
+            if (f.isFile()) readIndex(ObjectTable.map(f), f);
+            try (Exec.Batch b = X.openBatch()) {
+                if (hTree != null) compare(b, hTree, "");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        for (String p : IDX.keySet())
+            if (!seen.contains(p) && !isPruned(p)) added.add(p);
+        Collections.sort(deleted); Collections.sort(modified);
+    }
+    /** reads the entries and the TREE extension, checks the files */
+    void readIndex(ByteBuffer b, File f) throws IOException {
+        if (b.getInt(0) != 0x44495243) //"DIRC"
+            throw new IOException(f+": not an index file");
+        int v = b.getInt(4), n = b.getInt(8);
+        if (v < 2 || v > 4) throw new IOException("index version "+v);
+        long racy = f.lastModified()/1000; //seconds
+        List<Callable<String>> work = new ArrayList<>();
+        byte[] prev = new byte[0];
+        int p = 12;
+        for (int i=0; i<n; i++) {
+            int mtime = b.getInt(p+8), nsec = b.getInt(p+12);
+            long ino = b.getInt(p+20) & 0xFFFFFFFFL;
+            int mode = b.getInt(p+24), size = b.getInt(p+36);
+            String h = ObjectTable.getHash(ObjectTable.slice(b, p+40), 0);
+            int flags = b.getShort(p+60) & 0xFFFF, q = p+62;
+            boolean skip = false;
+            if (v >= 3 && (flags & 0x4000) != 0) { //extended flags
+                skip = (b.getShort(q) & 0x4000) != 0; q += 2;
+            }
+            int k = q;
+            if (v == 4) { //prefix compression
+                int c = b.get(k++) & 0xFF, strip = c & 127;
+                while ((c & 128) != 0) {
+                    c = b.get(k++) & 0xFF; strip = ((strip+1) << 7) | (c & 127);
+                }
+                int e = k; while (b.get(e) != 0) e++;
+                byte[] a = Arrays.copyOf(prev, prev.length - strip + e - k);
+                for (int j=k; j<e; j++) a[prev.length - strip + j-k] = b.get(j);
+                prev = a; p = e+1;
+            } else {
+                int e = k; while (b.get(e) != 0) e++;
+                prev = new byte[e-k];
+                for (int j=k; j<e; j++) prev[j-k] = b.get(j);
+                p += (e - p + 8) & ~7; //1 to 8 NULs
+            }
+            String path = new String(prev, "UTF-8");
+            String m = Integer.toOctalString(mode);
+            if (((flags >> 12) & 3) != 0) { //stage 1, 2, or 3
+                if (!unmerged.contains(path)) unmerged.add(path);
+                continue;
+            }
+            IDX.put(path, new String[] {h, m});
+            if (skip || m.equals(GITLINK)) continue;
+            Callable<String> c = check(path, m, h, mtime, nsec, ino, size, racy);
+            if (c != null) work.add(c);
+        }
+        readExtensions(b, p);
+        hashAll(work);
+    }
+    /**
+     * compares stat data, returns a task if the file must be hashed <p>
+     * a file changed in the same second as the index is racy
+     */
+    Callable<String> check(final String path, String m, final String h,
+          int mtime, int nsec, long ino, int size, long racy) {
+        final File f = new File(root, path);
+        Map<String, Object> a;
+        try {
+            a = readAttributes(f.toPath());
+        } catch (IOException e) {
+            missing.add(path); return null;
+        }
+        boolean link = (Boolean)a.get("isSymbolicLink");
+        boolean exec = a.containsKey("mode")? //unknown if not Unix
+            ((Integer)a.get("mode") & 0100) != 0 : m.equals("100755");
+        if (link != m.equals("120000")
+            || (!link && exec != m.equals("100755"))) {
+            changed.add(path); return null;
+        }
+        if ((int)(long)(Long)a.get("size") != size) {
+            changed.add(path); return null;
+        }
+        FileTime t = (FileTime)a.get("lastModifiedTime");
+        long s = t.to(TimeUnit.SECONDS);
+        long ns = t.to(TimeUnit.NANOSECONDS) - 1000000000L*s;
+        boolean same = (s == (mtime & 0xFFFFFFFFL))
+            && (nsec == 0 || ns == nsec) && s < racy;
+        if (same && a.containsKey("ino") && ino != 0)
+            same = ((Long)a.get("ino") & 0xFFFFFFFFL) == ino;
+        if (same) return null;
+        return new Callable<String>() {
+            public String call() throws IOException {
+                return Exec.calculateSHA(f).equals(h)? null : path;
+            }
+        };
+    }
+    static Map<String, Object> readAttributes(Path p) throws IOException {
+        try {
+            return Files.readAttributes(p,
+                "unix:ino,mode,size,lastModifiedTime,isSymbolicLink",
+                LinkOption.NOFOLLOW_LINKS);
+        } catch (UnsupportedOperationException x) { //not Unix
+            return Files.readAttributes(p, "size,lastModifiedTime,isSymbolicLink",
+                LinkOption.NOFOLLOW_LINKS);
+        }
+    }
+    /** hashes the suspicious files in parallel */
+    void hashAll(List<Callable<String>> work) throws IOException {
+        hashed = work.size();
+        if (hashed == 0) return;
+        int k = Runtime.getRuntime().availableProcessors();
+        ExecutorService ex = Executors.newFixedThreadPool(k);
+        try {
+            for (Future<String> r : ex.invokeAll(work))
+                if (r.get() != null) changed.add(r.get());
+        } catch (InterruptedException x) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException x) {
+            throw new IOException(x.getCause());
+        } finally {
+            ex.shutdown();
+        }
+        Collections.sort(changed);
+    }
+    /** finds the TREE extension, which caches the SHA of each folder */
+    void readExtensions(ByteBuffer b, int p) {
+        int end = b.limit() - L; //SHA of the index
+        while (p + 8 <= end) {
+            int sig = b.getInt(p), n = b.getInt(p+4);
+            if (sig == 0x54524545) readTree(b, p+8, ""); //"TREE"
+            p += 8 + n;
+        }
+    }
+    /** reads one cached folder and its sub-folders, returns the end */
+    int readTree(ByteBuffer b, int p, String dir) {
+        int e = p; while (b.get(e) != 0) e++;
+        String name = string(b, p, e);
+        String path = name.isEmpty()? dir : dir+name+"/";
+        p = e+1; e = p; while (b.get(e) != ' ') e++;
+        int count = Integer.parseInt(string(b, p, e));
+        p = e+1; e = p; while (b.get(e) != '\n') e++;
+        int sub = Integer.parseInt(string(b, p, e));
+        p = e+1;
+        if (count >= 0) { //-1 means invalid
+            cache.put(path, ObjectTable.getHash(ObjectTable.slice(b, p), 0)); p += L;
+        }
+        for (int i=0; i<sub; i++) p = readTree(b, p, path);
+        return p;
+    }
+    static String string(ByteBuffer b, int p, int e) {
+        byte[] a = new byte[e-p];
+        for (int i=p; i<e; i++) a[i-p] = b.get(i);
+        try {
+            return new String(a, "UTF-8");
+        } catch (UnsupportedEncodingException x) {
+            throw new RuntimeException(x);
+        }
+    }
+    /** walks Tree h and the index together, skipping equal folders */
+    void compare(Exec.Batch b, String h, String dir) throws IOException {
+        if (h.equals(cache.get(dir))) { pruned.add(dir); return; }
+        b.request(h); b.flush();
+        if (!Git.TREE.equals(b.next())) throw new IOException(h+" is not a tree");
+        byte[] a = b.read();
+        int p = 0;
+        while (p < a.length) { //mode SP name NUL sha
+            int s = p; while (a[s] != ' ') s++;
+            int e = s; while (a[e] != 0) e++;
+            String m = new String(a, p, s-p);
+            String path = dir+new String(a, s+1, e-s-1, "UTF-8");
+            byte[] sha = Arrays.copyOfRange(a, e+1, e+1+L);
+            String x = ObjectTable.getHash(ByteBuffer.wrap(sha), 0);
+            p = e+1+L;
+            if (m.equals("40000")) { compare(b, x, path+"/"); continue; }
+            String[] d = IDX.get(path);
+            seen.add(path);
+            if (d == null) { if (!unmerged.contains(path)) deleted.add(path); }
+            else if (!d[0].equals(x) || !d[1].equals(m)) modified.add(path);
+        }
+    }
+    boolean isPruned(String path) {
+        int i = path.lastIndexOf('/');
+        while (i >= 0) {
+            if (pruned.contains(path.substring(0, i+1))) return true;
+            i = path.lastIndexOf('/', i-1);
+        }
+        return pruned.contains("");
+    }
+    /** true if there is no difference */
+    public boolean isClean() {
+        return added.isEmpty() && deleted.isEmpty() && modified.isEmpty()
+            && changed.isEmpty() && missing.isEmpty() && unmerged.isEmpty();
+    }
+    /** the number of files that were read and hashed */
+    public int getHashCount() { return hashed; }
+    /** prints each path with two letters, as in git status --short */
+    public void print() {
+        Map<String, String> m = new TreeMap<>();
+        for (String p : added) put(m, p, 'A', 0);
+        for (String p : deleted) put(m, p, 'D', 0);
+        for (String p : modified) put(m, p, 'M', 0);
+        for (String p : changed) put(m, p, 'M', 1);
+        for (String p : missing) put(m, p, 'D', 1);
+        for (String p : unmerged) m.put(p, "UU");
+        for (String p : m.keySet()) System.out.println(m.get(p)+" "+p);
+        System.out.println(this);
+    }
+    static void put(Map<String, String> m, String p, char c, int i) {
+        char[] a = m.containsKey(p)? m.get(p).toCharArray() : "  ".toCharArray();
+        a[i] = c; m.put(p, new String(a));
+    }
+    /** the number of changes and files hashed */
+    public String toString() {
+        int s = added.size() + deleted.size() + modified.size();
+        int w = changed.size() + missing.size();
+        return s+" staged  "+w+" not staged  "+unmerged.size()
+            +" unmerged  "+IDX.size()+" in index  "+hashed+" hashed";
+    }
+}